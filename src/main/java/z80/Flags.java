@@ -0,0 +1,113 @@
+package z80;
+
+/**
+ * Precomputed values of the F register. Each arithmetic instruction sets F
+ * with a single lookup into one of these tables rather than adjusting the
+ * flags one bit at a time. The two 128K add/subtract tables are bytes to
+ * keep them cache friendly, so loads from them are masked with 0xff.
+ */
+final class Flags {
+    static final int C = 0x01;
+    static final int N = 0x02;
+    static final int PV = 0x04;
+    static final int F3 = 0x08;
+    static final int H = 0x10;
+    static final int F5 = 0x20;
+    static final int Z = 0x40;
+    static final int S = 0x80;
+
+    /** S, Z, 5 and 3 for a result. */
+    static final int[] SZ53 = new int[256];
+
+    /** S, Z, 5, 3 and parity for a result - the flags for logic ops and shifts. */
+    static final int[] SZ53P = new int[256];
+
+    /** 8 bit add, indexed by {@code carry << 16 | before << 8 | result}. */
+    static final byte[] ADD = new byte[0x20000];
+
+    /** 8 bit subtract, indexed by {@code carry << 16 | before << 8 | result}. */
+    static final byte[] SUB = new byte[0x20000];
+
+    /** INC r, indexed by the result. The carry flag is not included. */
+    static final int[] INC = new int[256];
+
+    /** DEC r, indexed by the result. The carry flag is not included. */
+    static final int[] DEC = new int[256];
+
+    /**
+     * DAA, indexed by {@code N << 10 | H << 9 | C << 8 | A}. Each entry holds
+     * the new A in the upper byte and the new F in the lower one.
+     */
+    static final int[] DAA = new int[2048];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int sz53 = (i & (S | F5 | F3)) | (i == 0 ? Z : 0);
+            SZ53[i] = sz53;
+            SZ53P[i] = sz53 | (Integer.bitCount(i) % 2 == 0 ? PV : 0);
+            INC[i] = sz53 | ((i & 0x0f) == 0 ? H : 0) | (i == 0x80 ? PV : 0);
+            DEC[i] = sz53 | N | ((i & 0x0f) == 0x0f ? H : 0) | (i == 0x7f ? PV : 0);
+        }
+
+        for (int carry = 0; carry < 2; carry++) {
+            for (int before = 0; before < 256; before++) {
+                for (int result = 0; result < 256; result++) {
+                    final int idx = carry << 16 | before << 8 | result;
+
+                    int val = (result - before - carry) & 0xff;
+                    int flags = SZ53[result];
+                    if (before + val + carry > 0xff) {
+                        flags |= C;
+                    }
+                    if ((before & 0x0f) + (val & 0x0f) + carry > 0x0f) {
+                        flags |= H;
+                    }
+                    if (((before ^ ~val) & (before ^ result) & 0x80) != 0) {
+                        flags |= PV;
+                    }
+                    ADD[idx] = (byte) flags;
+
+                    val = (before - result - carry) & 0xff;
+                    flags = SZ53[result] | N;
+                    if (before - val - carry < 0) {
+                        flags |= C;
+                    }
+                    if ((before & 0x0f) - (val & 0x0f) - carry < 0) {
+                        flags |= H;
+                    }
+                    if (((before ^ val) & (before ^ result) & 0x80) != 0) {
+                        flags |= PV;
+                    }
+                    SUB[idx] = (byte) flags;
+                }
+            }
+        }
+
+        for (int idx = 0; idx < DAA.length; idx++) {
+            final int a = idx & 0xff;
+            final boolean carry = (idx & 0x100) != 0;
+            final boolean half = (idx & 0x200) != 0;
+            final boolean subtract = (idx & 0x400) != 0;
+            final int low = a & 0x0f;
+
+            int diff = 0;
+            int flags = 0;
+            if (half || low > 9) {
+                diff |= 0x06;
+            }
+            if (carry || a > 0x99) {
+                diff |= 0x60;
+                flags |= C;
+            }
+            if (subtract ? (half && low < 6) : low > 9) {
+                flags |= H;
+            }
+            final int result = (subtract ? a - diff : a + diff) & 0xff;
+            flags |= SZ53P[result] | (subtract ? N : 0);
+            DAA[idx] = result << 8 | flags;
+        }
+    }
+
+    private Flags() {
+    }
+}
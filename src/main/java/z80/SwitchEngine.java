@@ -0,0 +1,1851 @@
+package z80;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import z80.Registers.IntMode;
+
+import static z80.Registers.*;
+
+/**
+ * Executes instructions with one dense switch per opcode page instead of the
+ * handler tables in {@link Cpu}. Prefixes are decoded directly into the page
+ * for the following opcode, so there is no re-entrant dispatch through
+ * {@code execute()}. The flag and ALU logic is shared with the handler engine
+ * so the two produce identical results.
+ *
+ * Each case returns the T states it took rather than updating the counter
+ * itself; this keeps the page methods below the size at which HotSpot
+ * refuses to compile them.
+ */
+final class SwitchEngine {
+    private static final Logger log = LoggerFactory.getLogger(SwitchEngine.class);
+
+    private final Cpu cpu;
+
+    SwitchEngine(Cpu cpu) {
+        this.cpu = cpu;
+    }
+
+    /**
+     * Executes the instruction at PC.
+     *
+     * @return the T states taken.
+     */
+    int step() {
+        final Registers regs = cpu.registers;
+        final int[] r = regs.reg;
+        final Memory m = cpu.memory;
+        final int op = cpu.readNextByte();
+        switch (op) {
+            case 0x00: // NOP
+                return 4;
+            case 0x01: // LD BC,nn
+                regs.setBC(cpu.readNextWord());
+                return 10;
+            case 0x02: // LD (BC),A
+                m.set8bit(regs.getBC(), r[_A]);
+                return 7;
+            case 0x03: // INC BC
+                regs.setBC(regs.getBC() + 1);
+                return 6;
+            case 0x04: // INC B
+                r[_B] = cpu.inc8(r[_B]);
+                return 4;
+            case 0x05: // DEC B
+                r[_B] = cpu.dec8(r[_B]);
+                return 4;
+            case 0x06: // LD B,n
+                r[_B] = cpu.readNextByte();
+                return 7;
+            case 0x07: // RLCA
+                cpu.rlca();
+                return 4;
+            case 0x08: // EX AF,AF'
+                cpu.exAF();
+                return 4;
+            case 0x09: // ADD HL,BC
+                cpu.addHL(regs.getBC());
+                return 11;
+            case 0x0a: // LD A,(BC)
+                r[_A] = m.get8bit(regs.getBC());
+                return 7;
+            case 0x0b: // DEC BC
+                regs.setBC(regs.getBC() - 1);
+                return 6;
+            case 0x0c: // INC C
+                r[_C] = cpu.inc8(r[_C]);
+                return 4;
+            case 0x0d: // DEC C
+                r[_C] = cpu.dec8(r[_C]);
+                return 4;
+            case 0x0e: // LD C,n
+                r[_C] = cpu.readNextByte();
+                return 7;
+            case 0x0f: // RRCA
+                cpu.rrca();
+                return 4;
+            case 0x10: { // DJNZ e
+                final int dist = cpu.readByteOffset();
+                r[_B] = (r[_B] - 1) & 0xff;
+                if (r[_B] != 0) {
+                    r[_PC] = (r[_PC] + dist) & 0xffff;
+                    return 13;
+                }
+                return 8;
+            }
+            case 0x11: // LD DE,nn
+                regs.setDE(cpu.readNextWord());
+                return 10;
+            case 0x12: // LD (DE),A
+                m.set8bit(regs.getDE(), r[_A]);
+                return 7;
+            case 0x13: // INC DE
+                regs.setDE(regs.getDE() + 1);
+                return 6;
+            case 0x14: // INC D
+                r[_D] = cpu.inc8(r[_D]);
+                return 4;
+            case 0x15: // DEC D
+                r[_D] = cpu.dec8(r[_D]);
+                return 4;
+            case 0x16: // LD D,n
+                r[_D] = cpu.readNextByte();
+                return 7;
+            case 0x17: // RLA
+                cpu.rla();
+                return 4;
+            case 0x18: // JR e
+                return jr(true);
+            case 0x19: // ADD HL,DE
+                cpu.addHL(regs.getDE());
+                return 11;
+            case 0x1a: // LD A,(DE)
+                r[_A] = m.get8bit(regs.getDE());
+                return 7;
+            case 0x1b: // DEC DE
+                regs.setDE(regs.getDE() - 1);
+                return 6;
+            case 0x1c: // INC E
+                r[_E] = cpu.inc8(r[_E]);
+                return 4;
+            case 0x1d: // DEC E
+                r[_E] = cpu.dec8(r[_E]);
+                return 4;
+            case 0x1e: // LD E,n
+                r[_E] = cpu.readNextByte();
+                return 7;
+            case 0x1f: // RRA
+                cpu.rra();
+                return 4;
+            case 0x20: // JR NZ,e
+                return jr(!regs.isFlag(F_Z));
+            case 0x21: // LD HL,nn
+                regs.setHL(cpu.readNextWord());
+                return 10;
+            case 0x22: // LD (nn),HL
+                m.set16bit(cpu.readNextWord(), regs.getHL());
+                return 16;
+            case 0x23: // INC HL
+                regs.setHL(regs.getHL() + 1);
+                return 6;
+            case 0x24: // INC H
+                r[_H] = cpu.inc8(r[_H]);
+                return 4;
+            case 0x25: // DEC H
+                r[_H] = cpu.dec8(r[_H]);
+                return 4;
+            case 0x26: // LD H,n
+                r[_H] = cpu.readNextByte();
+                return 7;
+            case 0x27: // DAA
+                cpu.daa();
+                return 4;
+            case 0x28: // JR Z,e
+                return jr(regs.isFlag(F_Z));
+            case 0x29: // ADD HL,HL
+                cpu.addHL(regs.getHL());
+                return 11;
+            case 0x2a: // LD HL,(nn)
+                regs.setHL(m.get16bit(cpu.readNextWord()));
+                return 16;
+            case 0x2b: // DEC HL
+                regs.setHL(regs.getHL() - 1);
+                return 6;
+            case 0x2c: // INC L
+                r[_L] = cpu.inc8(r[_L]);
+                return 4;
+            case 0x2d: // DEC L
+                r[_L] = cpu.dec8(r[_L]);
+                return 4;
+            case 0x2e: // LD L,n
+                r[_L] = cpu.readNextByte();
+                return 7;
+            case 0x2f: // CPL
+                cpu.cpl();
+                return 4;
+            case 0x30: // JR NC,e
+                return jr(!regs.isFlag(F_C));
+            case 0x31: // LD SP,nn
+                regs.setSP(cpu.readNextWord());
+                return 10;
+            case 0x32: // LD (nn),A
+                m.set8bit(cpu.readNextWord(), r[_A]);
+                return 13;
+            case 0x33: // INC SP
+                regs.setSP(regs.getSP() + 1);
+                return 6;
+            case 0x34: // INC (HL)
+                m.set8bit(regs.getHL(), cpu.inc8(m.get8bit(regs.getHL())));
+                return 11;
+            case 0x35: // DEC (HL)
+                m.set8bit(regs.getHL(), cpu.dec8(m.get8bit(regs.getHL())));
+                return 11;
+            case 0x36: // LD (HL),n
+                m.set8bit(regs.getHL(), cpu.readNextByte());
+                return 10;
+            case 0x37: // SCF
+                cpu.scf();
+                return 4;
+            case 0x38: // JR C,e
+                return jr(regs.isFlag(F_C));
+            case 0x39: // ADD HL,SP
+                cpu.addHL(regs.getSP());
+                return 11;
+            case 0x3a: // LD A,(nn)
+                r[_A] = m.get8bit(cpu.readNextWord());
+                return 13;
+            case 0x3b: // DEC SP
+                regs.setSP(regs.getSP() - 1);
+                return 6;
+            case 0x3c: // INC A
+                r[_A] = cpu.inc8(r[_A]);
+                return 4;
+            case 0x3d: // DEC A
+                r[_A] = cpu.dec8(r[_A]);
+                return 4;
+            case 0x3e: // LD A,n
+                r[_A] = cpu.readNextByte();
+                return 7;
+            case 0x3f: // CCF
+                cpu.ccf();
+                return 4;
+            case 0x40: // LD B,B
+                return 4;
+            case 0x41: // LD B,C
+                r[_B] = r[_C];
+                return 4;
+            case 0x42: // LD B,D
+                r[_B] = r[_D];
+                return 4;
+            case 0x43: // LD B,E
+                r[_B] = r[_E];
+                return 4;
+            case 0x44: // LD B,H
+                r[_B] = r[_H];
+                return 4;
+            case 0x45: // LD B,L
+                r[_B] = r[_L];
+                return 4;
+            case 0x46: // LD B,(HL)
+                r[_B] = m.get8bit(regs.getHL());
+                return 7;
+            case 0x47: // LD B,A
+                r[_B] = r[_A];
+                return 4;
+            case 0x48: // LD C,B
+                r[_C] = r[_B];
+                return 4;
+            case 0x49: // LD C,C
+                return 4;
+            case 0x4a: // LD C,D
+                r[_C] = r[_D];
+                return 4;
+            case 0x4b: // LD C,E
+                r[_C] = r[_E];
+                return 4;
+            case 0x4c: // LD C,H
+                r[_C] = r[_H];
+                return 4;
+            case 0x4d: // LD C,L
+                r[_C] = r[_L];
+                return 4;
+            case 0x4e: // LD C,(HL)
+                r[_C] = m.get8bit(regs.getHL());
+                return 7;
+            case 0x4f: // LD C,A
+                r[_C] = r[_A];
+                return 4;
+            case 0x50: // LD D,B
+                r[_D] = r[_B];
+                return 4;
+            case 0x51: // LD D,C
+                r[_D] = r[_C];
+                return 4;
+            case 0x52: // LD D,D
+                return 4;
+            case 0x53: // LD D,E
+                r[_D] = r[_E];
+                return 4;
+            case 0x54: // LD D,H
+                r[_D] = r[_H];
+                return 4;
+            case 0x55: // LD D,L
+                r[_D] = r[_L];
+                return 4;
+            case 0x56: // LD D,(HL)
+                r[_D] = m.get8bit(regs.getHL());
+                return 7;
+            case 0x57: // LD D,A
+                r[_D] = r[_A];
+                return 4;
+            case 0x58: // LD E,B
+                r[_E] = r[_B];
+                return 4;
+            case 0x59: // LD E,C
+                r[_E] = r[_C];
+                return 4;
+            case 0x5a: // LD E,D
+                r[_E] = r[_D];
+                return 4;
+            case 0x5b: // LD E,E
+                return 4;
+            case 0x5c: // LD E,H
+                r[_E] = r[_H];
+                return 4;
+            case 0x5d: // LD E,L
+                r[_E] = r[_L];
+                return 4;
+            case 0x5e: // LD E,(HL)
+                r[_E] = m.get8bit(regs.getHL());
+                return 7;
+            case 0x5f: // LD E,A
+                r[_E] = r[_A];
+                return 4;
+            case 0x60: // LD H,B
+                r[_H] = r[_B];
+                return 4;
+            case 0x61: // LD H,C
+                r[_H] = r[_C];
+                return 4;
+            case 0x62: // LD H,D
+                r[_H] = r[_D];
+                return 4;
+            case 0x63: // LD H,E
+                r[_H] = r[_E];
+                return 4;
+            case 0x64: // LD H,H
+                return 4;
+            case 0x65: // LD H,L
+                r[_H] = r[_L];
+                return 4;
+            case 0x66: // LD H,(HL)
+                r[_H] = m.get8bit(regs.getHL());
+                return 7;
+            case 0x67: // LD H,A
+                r[_H] = r[_A];
+                return 4;
+            case 0x68: // LD L,B
+                r[_L] = r[_B];
+                return 4;
+            case 0x69: // LD L,C
+                r[_L] = r[_C];
+                return 4;
+            case 0x6a: // LD L,D
+                r[_L] = r[_D];
+                return 4;
+            case 0x6b: // LD L,E
+                r[_L] = r[_E];
+                return 4;
+            case 0x6c: // LD L,H
+                r[_L] = r[_H];
+                return 4;
+            case 0x6d: // LD L,L
+                return 4;
+            case 0x6e: // LD L,(HL)
+                r[_L] = m.get8bit(regs.getHL());
+                return 7;
+            case 0x6f: // LD L,A
+                r[_L] = r[_A];
+                return 4;
+            case 0x70: // LD (HL),B
+                m.set8bit(regs.getHL(), r[_B]);
+                return 7;
+            case 0x71: // LD (HL),C
+                m.set8bit(regs.getHL(), r[_C]);
+                return 7;
+            case 0x72: // LD (HL),D
+                m.set8bit(regs.getHL(), r[_D]);
+                return 7;
+            case 0x73: // LD (HL),E
+                m.set8bit(regs.getHL(), r[_E]);
+                return 7;
+            case 0x74: // LD (HL),H
+                m.set8bit(regs.getHL(), r[_H]);
+                return 7;
+            case 0x75: // LD (HL),L
+                m.set8bit(regs.getHL(), r[_L]);
+                return 7;
+            case 0x76: // HALT
+                cpu.halted = true;
+                return 4;
+            case 0x77: // LD (HL),A
+                m.set8bit(regs.getHL(), r[_A]);
+                return 7;
+            case 0x78: // LD A,B
+                r[_A] = r[_B];
+                return 4;
+            case 0x79: // LD A,C
+                r[_A] = r[_C];
+                return 4;
+            case 0x7a: // LD A,D
+                r[_A] = r[_D];
+                return 4;
+            case 0x7b: // LD A,E
+                r[_A] = r[_E];
+                return 4;
+            case 0x7c: // LD A,H
+                r[_A] = r[_H];
+                return 4;
+            case 0x7d: // LD A,L
+                r[_A] = r[_L];
+                return 4;
+            case 0x7e: // LD A,(HL)
+                r[_A] = m.get8bit(regs.getHL());
+                return 7;
+            case 0x7f: // LD A,A
+                return 4;
+            case 0x80: // ADD A,B
+                cpu.add8(r[_B]);
+                return 4;
+            case 0x81: // ADD A,C
+                cpu.add8(r[_C]);
+                return 4;
+            case 0x82: // ADD A,D
+                cpu.add8(r[_D]);
+                return 4;
+            case 0x83: // ADD A,E
+                cpu.add8(r[_E]);
+                return 4;
+            case 0x84: // ADD A,H
+                cpu.add8(r[_H]);
+                return 4;
+            case 0x85: // ADD A,L
+                cpu.add8(r[_L]);
+                return 4;
+            case 0x86: // ADD A,(HL)
+                cpu.add8(m.get8bit(regs.getHL()));
+                return 7;
+            case 0x87: // ADD A,A
+                cpu.add8(r[_A]);
+                return 4;
+            case 0x88: // ADC A,B
+                cpu.adc8(r[_B]);
+                return 4;
+            case 0x89: // ADC A,C
+                cpu.adc8(r[_C]);
+                return 4;
+            case 0x8a: // ADC A,D
+                cpu.adc8(r[_D]);
+                return 4;
+            case 0x8b: // ADC A,E
+                cpu.adc8(r[_E]);
+                return 4;
+            case 0x8c: // ADC A,H
+                cpu.adc8(r[_H]);
+                return 4;
+            case 0x8d: // ADC A,L
+                cpu.adc8(r[_L]);
+                return 4;
+            case 0x8e: // ADC A,(HL)
+                cpu.adc8(m.get8bit(regs.getHL()));
+                return 7;
+            case 0x8f: // ADC A,A
+                cpu.adc8(r[_A]);
+                return 4;
+            case 0x90: // SUB B
+                cpu.sub8(r[_B]);
+                return 4;
+            case 0x91: // SUB C
+                cpu.sub8(r[_C]);
+                return 4;
+            case 0x92: // SUB D
+                cpu.sub8(r[_D]);
+                return 4;
+            case 0x93: // SUB E
+                cpu.sub8(r[_E]);
+                return 4;
+            case 0x94: // SUB H
+                cpu.sub8(r[_H]);
+                return 4;
+            case 0x95: // SUB L
+                cpu.sub8(r[_L]);
+                return 4;
+            case 0x96: // SUB (HL)
+                cpu.sub8(m.get8bit(regs.getHL()));
+                return 7;
+            case 0x97: // SUB A
+                cpu.sub8(r[_A]);
+                return 4;
+            case 0x98: // SBC A,B
+                cpu.sbc8(r[_B]);
+                return 4;
+            case 0x99: // SBC A,C
+                cpu.sbc8(r[_C]);
+                return 4;
+            case 0x9a: // SBC A,D
+                cpu.sbc8(r[_D]);
+                return 4;
+            case 0x9b: // SBC A,E
+                cpu.sbc8(r[_E]);
+                return 4;
+            case 0x9c: // SBC A,H
+                cpu.sbc8(r[_H]);
+                return 4;
+            case 0x9d: // SBC A,L
+                cpu.sbc8(r[_L]);
+                return 4;
+            case 0x9e: // SBC A,(HL)
+                cpu.sbc8(m.get8bit(regs.getHL()));
+                return 7;
+            case 0x9f: // SBC A,A
+                cpu.sbc8(r[_A]);
+                return 4;
+            case 0xa0: // AND B
+                cpu.and8(r[_B]);
+                return 4;
+            case 0xa1: // AND C
+                cpu.and8(r[_C]);
+                return 4;
+            case 0xa2: // AND D
+                cpu.and8(r[_D]);
+                return 4;
+            case 0xa3: // AND E
+                cpu.and8(r[_E]);
+                return 4;
+            case 0xa4: // AND H
+                cpu.and8(r[_H]);
+                return 4;
+            case 0xa5: // AND L
+                cpu.and8(r[_L]);
+                return 4;
+            case 0xa6: // AND (HL)
+                cpu.and8(m.get8bit(regs.getHL()));
+                return 7;
+            case 0xa7: // AND A
+                cpu.and8(r[_A]);
+                return 4;
+            case 0xa8: // XOR B
+                cpu.xor8(r[_B]);
+                return 4;
+            case 0xa9: // XOR C
+                cpu.xor8(r[_C]);
+                return 4;
+            case 0xaa: // XOR D
+                cpu.xor8(r[_D]);
+                return 4;
+            case 0xab: // XOR E
+                cpu.xor8(r[_E]);
+                return 4;
+            case 0xac: // XOR H
+                cpu.xor8(r[_H]);
+                return 4;
+            case 0xad: // XOR L
+                cpu.xor8(r[_L]);
+                return 4;
+            case 0xae: // XOR (HL)
+                cpu.xor8(m.get8bit(regs.getHL()));
+                return 7;
+            case 0xaf: // XOR A
+                cpu.xor8(r[_A]);
+                return 4;
+            case 0xb0: // OR B
+                cpu.or8(r[_B]);
+                return 4;
+            case 0xb1: // OR C
+                cpu.or8(r[_C]);
+                return 4;
+            case 0xb2: // OR D
+                cpu.or8(r[_D]);
+                return 4;
+            case 0xb3: // OR E
+                cpu.or8(r[_E]);
+                return 4;
+            case 0xb4: // OR H
+                cpu.or8(r[_H]);
+                return 4;
+            case 0xb5: // OR L
+                cpu.or8(r[_L]);
+                return 4;
+            case 0xb6: // OR (HL)
+                cpu.or8(m.get8bit(regs.getHL()));
+                return 7;
+            case 0xb7: // OR A
+                cpu.or8(r[_A]);
+                return 4;
+            case 0xb8: // CP B
+                cpu.cp8(r[_B]);
+                return 4;
+            case 0xb9: // CP C
+                cpu.cp8(r[_C]);
+                return 4;
+            case 0xba: // CP D
+                cpu.cp8(r[_D]);
+                return 4;
+            case 0xbb: // CP E
+                cpu.cp8(r[_E]);
+                return 4;
+            case 0xbc: // CP H
+                cpu.cp8(r[_H]);
+                return 4;
+            case 0xbd: // CP L
+                cpu.cp8(r[_L]);
+                return 4;
+            case 0xbe: // CP (HL)
+                cpu.cp8(m.get8bit(regs.getHL()));
+                return 7;
+            case 0xbf: // CP A
+                cpu.cp8(r[_A]);
+                return 4;
+            case 0xc0: // RET NZ
+                return retIf(cpu.testFlag(0));
+            case 0xc1: // POP BC
+                regs.setBC(cpu.pop());
+                return 10;
+            case 0xc2: // JP NZ,nn
+                return jp(cpu.testFlag(0));
+            case 0xc3: // JP nn
+                return jp(true);
+            case 0xc4: // CALL NZ,nn
+                return call(cpu.testFlag(0));
+            case 0xc5: // PUSH BC
+                cpu.push(regs.getBC());
+                return 11;
+            case 0xc6: // ADD A,n
+                cpu.add8(cpu.readNextByte());
+                return 7;
+            case 0xc7: // RST 00H
+                return rst(0x00);
+            case 0xc8: // RET Z
+                return retIf(cpu.testFlag(1));
+            case 0xc9: // RET
+                r[_PC] = cpu.pop();
+                return 10;
+            case 0xca: // JP Z,nn
+                return jp(cpu.testFlag(1));
+            case 0xcb: // CB prefix
+                return stepCB(regs, r, m);
+            case 0xcc: // CALL Z,nn
+                return call(cpu.testFlag(1));
+            case 0xcd: // CALL nn
+                return call(true);
+            case 0xce: // ADC A,n
+                cpu.adc8(cpu.readNextByte());
+                return 7;
+            case 0xcf: // RST 08H
+                return rst(0x08);
+            case 0xd0: // RET NC
+                return retIf(cpu.testFlag(2));
+            case 0xd1: // POP DE
+                regs.setDE(cpu.pop());
+                return 10;
+            case 0xd2: // JP NC,nn
+                return jp(cpu.testFlag(2));
+            case 0xd3: // OUT (n),A
+                cpu.writePort(cpu.readNextByte() | (r[_A] << 8), r[_A]);
+                return 11;
+            case 0xd4: // CALL NC,nn
+                return call(cpu.testFlag(2));
+            case 0xd5: // PUSH DE
+                cpu.push(regs.getDE());
+                return 11;
+            case 0xd6: // SUB n
+                cpu.sub8(cpu.readNextByte());
+                return 7;
+            case 0xd7: // RST 10H
+                return rst(0x10);
+            case 0xd8: // RET C
+                return retIf(cpu.testFlag(3));
+            case 0xd9: // EXX
+                regs.exx();
+                return 4;
+            case 0xda: // JP C,nn
+                return jp(cpu.testFlag(3));
+            case 0xdb: // IN A,(n)
+                r[_A] = cpu.readPort(cpu.readNextByte() | (r[_A] << 8));
+                return 11;
+            case 0xdc: // CALL C,nn
+                return call(cpu.testFlag(3));
+            case 0xdd: // DD prefix
+                return stepIndex(regs, r, m, _IX, "DD");
+            case 0xde: // SBC A,n
+                cpu.sbc8(cpu.readNextByte());
+                return 7;
+            case 0xdf: // RST 18H
+                return rst(0x18);
+            case 0xe0: // RET PO
+                return retIf(cpu.testFlag(4));
+            case 0xe1: // POP HL
+                regs.setHL(cpu.pop());
+                return 10;
+            case 0xe2: // JP PO,nn
+                return jp(cpu.testFlag(4));
+            case 0xe3: { // EX (SP),HL
+                final int tmp = regs.getHL();
+                regs.setHL(m.get16bit(regs.getSP()));
+                m.set16bit(regs.getSP(), tmp);
+                return 19;
+            }
+            case 0xe4: // CALL PO,nn
+                return call(cpu.testFlag(4));
+            case 0xe5: // PUSH HL
+                cpu.push(regs.getHL());
+                return 11;
+            case 0xe6: // AND n
+                cpu.and8(cpu.readNextByte());
+                return 7;
+            case 0xe7: // RST 20H
+                return rst(0x20);
+            case 0xe8: // RET PE
+                return retIf(cpu.testFlag(5));
+            case 0xe9: // JP (HL)
+                r[_PC] = regs.getHL();
+                return 4;
+            case 0xea: // JP PE,nn
+                return jp(cpu.testFlag(5));
+            case 0xeb: { // EX DE,HL
+                final int tmp = regs.getHL();
+                regs.setHL(regs.getDE());
+                regs.setDE(tmp);
+                return 4;
+            }
+            case 0xec: // CALL PE,nn
+                return call(cpu.testFlag(5));
+            case 0xed: // ED prefix
+                return stepED(regs, r, m);
+            case 0xee: // XOR n
+                cpu.xor8(cpu.readNextByte());
+                return 7;
+            case 0xef: // RST 28H
+                return rst(0x28);
+            case 0xf0: // RET P
+                return retIf(cpu.testFlag(6));
+            case 0xf1: // POP AF
+                regs.setAF(cpu.pop());
+                return 10;
+            case 0xf2: // JP P,nn
+                return jp(cpu.testFlag(6));
+            case 0xf3: // DI
+                regs.iff1 = regs.iff2 = false;
+                return 4;
+            case 0xf4: // CALL P,nn
+                return call(cpu.testFlag(6));
+            case 0xf5: // PUSH AF
+                cpu.push(regs.getAF());
+                return 11;
+            case 0xf6: // OR n
+                cpu.or8(cpu.readNextByte());
+                return 7;
+            case 0xf7: // RST 30H
+                return rst(0x30);
+            case 0xf8: // RET M
+                return retIf(cpu.testFlag(7));
+            case 0xf9: // LD SP,HL
+                regs.setSP(regs.getHL());
+                return 6;
+            case 0xfa: // JP M,nn
+                return jp(cpu.testFlag(7));
+            case 0xfb: // EI
+                cpu.enableInt = true;
+                return 4;
+            case 0xfc: // CALL M,nn
+                return call(cpu.testFlag(7));
+            case 0xfd: // FD prefix
+                return stepIndex(regs, r, m, _IY, "FD");
+            case 0xfe: // CP n
+                cpu.cp8(cpu.readNextByte());
+                return 7;
+            case 0xff: // RST 38H
+                return rst(0x38);
+
+        }
+        throw cpu.unhandled("--", op);
+    }
+
+    private int stepCB(Registers regs, int[] r, Memory m) {
+        final int op = cpu.readNextByte();
+        switch (op) {
+            case 0x00: // RLC B
+                r[_B] = cpu.bit_RLC(r[_B]);
+                return 8;
+            case 0x01: // RLC C
+                r[_C] = cpu.bit_RLC(r[_C]);
+                return 8;
+            case 0x02: // RLC D
+                r[_D] = cpu.bit_RLC(r[_D]);
+                return 8;
+            case 0x03: // RLC E
+                r[_E] = cpu.bit_RLC(r[_E]);
+                return 8;
+            case 0x04: // RLC H
+                r[_H] = cpu.bit_RLC(r[_H]);
+                return 8;
+            case 0x05: // RLC L
+                r[_L] = cpu.bit_RLC(r[_L]);
+                return 8;
+            case 0x06: // RLC (HL)
+                m.set8bit(regs.getHL(), cpu.bit_RLC(m.get8bit(regs.getHL())));
+                return 15;
+            case 0x07: // RLC A
+                r[_A] = cpu.bit_RLC(r[_A]);
+                return 8;
+            case 0x08: // RRC B
+                r[_B] = cpu.bit_RRC(r[_B]);
+                return 8;
+            case 0x09: // RRC C
+                r[_C] = cpu.bit_RRC(r[_C]);
+                return 8;
+            case 0x0a: // RRC D
+                r[_D] = cpu.bit_RRC(r[_D]);
+                return 8;
+            case 0x0b: // RRC E
+                r[_E] = cpu.bit_RRC(r[_E]);
+                return 8;
+            case 0x0c: // RRC H
+                r[_H] = cpu.bit_RRC(r[_H]);
+                return 8;
+            case 0x0d: // RRC L
+                r[_L] = cpu.bit_RRC(r[_L]);
+                return 8;
+            case 0x0e: // RRC (HL)
+                m.set8bit(regs.getHL(), cpu.bit_RRC(m.get8bit(regs.getHL())));
+                return 15;
+            case 0x0f: // RRC A
+                r[_A] = cpu.bit_RRC(r[_A]);
+                return 8;
+            case 0x10: // RL B
+                r[_B] = cpu.bit_RL(r[_B]);
+                return 8;
+            case 0x11: // RL C
+                r[_C] = cpu.bit_RL(r[_C]);
+                return 8;
+            case 0x12: // RL D
+                r[_D] = cpu.bit_RL(r[_D]);
+                return 8;
+            case 0x13: // RL E
+                r[_E] = cpu.bit_RL(r[_E]);
+                return 8;
+            case 0x14: // RL H
+                r[_H] = cpu.bit_RL(r[_H]);
+                return 8;
+            case 0x15: // RL L
+                r[_L] = cpu.bit_RL(r[_L]);
+                return 8;
+            case 0x16: // RL (HL)
+                m.set8bit(regs.getHL(), cpu.bit_RL(m.get8bit(regs.getHL())));
+                return 15;
+            case 0x17: // RL A
+                r[_A] = cpu.bit_RL(r[_A]);
+                return 8;
+            case 0x18: // RR B
+                r[_B] = cpu.bit_RR(r[_B]);
+                return 8;
+            case 0x19: // RR C
+                r[_C] = cpu.bit_RR(r[_C]);
+                return 8;
+            case 0x1a: // RR D
+                r[_D] = cpu.bit_RR(r[_D]);
+                return 8;
+            case 0x1b: // RR E
+                r[_E] = cpu.bit_RR(r[_E]);
+                return 8;
+            case 0x1c: // RR H
+                r[_H] = cpu.bit_RR(r[_H]);
+                return 8;
+            case 0x1d: // RR L
+                r[_L] = cpu.bit_RR(r[_L]);
+                return 8;
+            case 0x1e: // RR (HL)
+                m.set8bit(regs.getHL(), cpu.bit_RR(m.get8bit(regs.getHL())));
+                return 15;
+            case 0x1f: // RR A
+                r[_A] = cpu.bit_RR(r[_A]);
+                return 8;
+            case 0x20: // SLA B
+                r[_B] = cpu.bit_SLA(r[_B]);
+                return 8;
+            case 0x21: // SLA C
+                r[_C] = cpu.bit_SLA(r[_C]);
+                return 8;
+            case 0x22: // SLA D
+                r[_D] = cpu.bit_SLA(r[_D]);
+                return 8;
+            case 0x23: // SLA E
+                r[_E] = cpu.bit_SLA(r[_E]);
+                return 8;
+            case 0x24: // SLA H
+                r[_H] = cpu.bit_SLA(r[_H]);
+                return 8;
+            case 0x25: // SLA L
+                r[_L] = cpu.bit_SLA(r[_L]);
+                return 8;
+            case 0x26: // SLA (HL)
+                m.set8bit(regs.getHL(), cpu.bit_SLA(m.get8bit(regs.getHL())));
+                return 15;
+            case 0x27: // SLA A
+                r[_A] = cpu.bit_SLA(r[_A]);
+                return 8;
+            case 0x28: // SRA B
+                r[_B] = cpu.bit_SRA(r[_B]);
+                return 8;
+            case 0x29: // SRA C
+                r[_C] = cpu.bit_SRA(r[_C]);
+                return 8;
+            case 0x2a: // SRA D
+                r[_D] = cpu.bit_SRA(r[_D]);
+                return 8;
+            case 0x2b: // SRA E
+                r[_E] = cpu.bit_SRA(r[_E]);
+                return 8;
+            case 0x2c: // SRA H
+                r[_H] = cpu.bit_SRA(r[_H]);
+                return 8;
+            case 0x2d: // SRA L
+                r[_L] = cpu.bit_SRA(r[_L]);
+                return 8;
+            case 0x2e: // SRA (HL)
+                m.set8bit(regs.getHL(), cpu.bit_SRA(m.get8bit(regs.getHL())));
+                return 15;
+            case 0x2f: // SRA A
+                r[_A] = cpu.bit_SRA(r[_A]);
+                return 8;
+            case 0x38: // SRL B
+                r[_B] = cpu.bit_SRL(r[_B]);
+                return 8;
+            case 0x39: // SRL C
+                r[_C] = cpu.bit_SRL(r[_C]);
+                return 8;
+            case 0x3a: // SRL D
+                r[_D] = cpu.bit_SRL(r[_D]);
+                return 8;
+            case 0x3b: // SRL E
+                r[_E] = cpu.bit_SRL(r[_E]);
+                return 8;
+            case 0x3c: // SRL H
+                r[_H] = cpu.bit_SRL(r[_H]);
+                return 8;
+            case 0x3d: // SRL L
+                r[_L] = cpu.bit_SRL(r[_L]);
+                return 8;
+            case 0x3e: // SRL (HL)
+                m.set8bit(regs.getHL(), cpu.bit_SRL(m.get8bit(regs.getHL())));
+                return 15;
+            case 0x3f: // SRL A
+                r[_A] = cpu.bit_SRL(r[_A]);
+                return 8;
+            case 0x40: // BIT 0,B
+                cpu.bit(0, r[_B]);
+                return 8;
+            case 0x41: // BIT 0,C
+                cpu.bit(0, r[_C]);
+                return 8;
+            case 0x42: // BIT 0,D
+                cpu.bit(0, r[_D]);
+                return 8;
+            case 0x43: // BIT 0,E
+                cpu.bit(0, r[_E]);
+                return 8;
+            case 0x44: // BIT 0,H
+                cpu.bit(0, r[_H]);
+                return 8;
+            case 0x45: // BIT 0,L
+                cpu.bit(0, r[_L]);
+                return 8;
+            case 0x46: // BIT 0,(HL)
+                cpu.bit(0, m.get8bit(regs.getHL()));
+                return 12;
+            case 0x47: // BIT 0,A
+                cpu.bit(0, r[_A]);
+                return 8;
+            case 0x48: // BIT 1,B
+                cpu.bit(1, r[_B]);
+                return 8;
+            case 0x49: // BIT 1,C
+                cpu.bit(1, r[_C]);
+                return 8;
+            case 0x4a: // BIT 1,D
+                cpu.bit(1, r[_D]);
+                return 8;
+            case 0x4b: // BIT 1,E
+                cpu.bit(1, r[_E]);
+                return 8;
+            case 0x4c: // BIT 1,H
+                cpu.bit(1, r[_H]);
+                return 8;
+            case 0x4d: // BIT 1,L
+                cpu.bit(1, r[_L]);
+                return 8;
+            case 0x4e: // BIT 1,(HL)
+                cpu.bit(1, m.get8bit(regs.getHL()));
+                return 12;
+            case 0x4f: // BIT 1,A
+                cpu.bit(1, r[_A]);
+                return 8;
+            case 0x50: // BIT 2,B
+                cpu.bit(2, r[_B]);
+                return 8;
+            case 0x51: // BIT 2,C
+                cpu.bit(2, r[_C]);
+                return 8;
+            case 0x52: // BIT 2,D
+                cpu.bit(2, r[_D]);
+                return 8;
+            case 0x53: // BIT 2,E
+                cpu.bit(2, r[_E]);
+                return 8;
+            case 0x54: // BIT 2,H
+                cpu.bit(2, r[_H]);
+                return 8;
+            case 0x55: // BIT 2,L
+                cpu.bit(2, r[_L]);
+                return 8;
+            case 0x56: // BIT 2,(HL)
+                cpu.bit(2, m.get8bit(regs.getHL()));
+                return 12;
+            case 0x57: // BIT 2,A
+                cpu.bit(2, r[_A]);
+                return 8;
+            case 0x58: // BIT 3,B
+                cpu.bit(3, r[_B]);
+                return 8;
+            case 0x59: // BIT 3,C
+                cpu.bit(3, r[_C]);
+                return 8;
+            case 0x5a: // BIT 3,D
+                cpu.bit(3, r[_D]);
+                return 8;
+            case 0x5b: // BIT 3,E
+                cpu.bit(3, r[_E]);
+                return 8;
+            case 0x5c: // BIT 3,H
+                cpu.bit(3, r[_H]);
+                return 8;
+            case 0x5d: // BIT 3,L
+                cpu.bit(3, r[_L]);
+                return 8;
+            case 0x5e: // BIT 3,(HL)
+                cpu.bit(3, m.get8bit(regs.getHL()));
+                return 12;
+            case 0x5f: // BIT 3,A
+                cpu.bit(3, r[_A]);
+                return 8;
+            case 0x60: // BIT 4,B
+                cpu.bit(4, r[_B]);
+                return 8;
+            case 0x61: // BIT 4,C
+                cpu.bit(4, r[_C]);
+                return 8;
+            case 0x62: // BIT 4,D
+                cpu.bit(4, r[_D]);
+                return 8;
+            case 0x63: // BIT 4,E
+                cpu.bit(4, r[_E]);
+                return 8;
+            case 0x64: // BIT 4,H
+                cpu.bit(4, r[_H]);
+                return 8;
+            case 0x65: // BIT 4,L
+                cpu.bit(4, r[_L]);
+                return 8;
+            case 0x66: // BIT 4,(HL)
+                cpu.bit(4, m.get8bit(regs.getHL()));
+                return 12;
+            case 0x67: // BIT 4,A
+                cpu.bit(4, r[_A]);
+                return 8;
+            case 0x68: // BIT 5,B
+                cpu.bit(5, r[_B]);
+                return 8;
+            case 0x69: // BIT 5,C
+                cpu.bit(5, r[_C]);
+                return 8;
+            case 0x6a: // BIT 5,D
+                cpu.bit(5, r[_D]);
+                return 8;
+            case 0x6b: // BIT 5,E
+                cpu.bit(5, r[_E]);
+                return 8;
+            case 0x6c: // BIT 5,H
+                cpu.bit(5, r[_H]);
+                return 8;
+            case 0x6d: // BIT 5,L
+                cpu.bit(5, r[_L]);
+                return 8;
+            case 0x6e: // BIT 5,(HL)
+                cpu.bit(5, m.get8bit(regs.getHL()));
+                return 12;
+            case 0x6f: // BIT 5,A
+                cpu.bit(5, r[_A]);
+                return 8;
+            case 0x70: // BIT 6,B
+                cpu.bit(6, r[_B]);
+                return 8;
+            case 0x71: // BIT 6,C
+                cpu.bit(6, r[_C]);
+                return 8;
+            case 0x72: // BIT 6,D
+                cpu.bit(6, r[_D]);
+                return 8;
+            case 0x73: // BIT 6,E
+                cpu.bit(6, r[_E]);
+                return 8;
+            case 0x74: // BIT 6,H
+                cpu.bit(6, r[_H]);
+                return 8;
+            case 0x75: // BIT 6,L
+                cpu.bit(6, r[_L]);
+                return 8;
+            case 0x76: // BIT 6,(HL)
+                cpu.bit(6, m.get8bit(regs.getHL()));
+                return 12;
+            case 0x77: // BIT 6,A
+                cpu.bit(6, r[_A]);
+                return 8;
+            case 0x78: // BIT 7,B
+                cpu.bit(7, r[_B]);
+                return 8;
+            case 0x79: // BIT 7,C
+                cpu.bit(7, r[_C]);
+                return 8;
+            case 0x7a: // BIT 7,D
+                cpu.bit(7, r[_D]);
+                return 8;
+            case 0x7b: // BIT 7,E
+                cpu.bit(7, r[_E]);
+                return 8;
+            case 0x7c: // BIT 7,H
+                cpu.bit(7, r[_H]);
+                return 8;
+            case 0x7d: // BIT 7,L
+                cpu.bit(7, r[_L]);
+                return 8;
+            case 0x7e: // BIT 7,(HL)
+                cpu.bit(7, m.get8bit(regs.getHL()));
+                return 12;
+            case 0x7f: // BIT 7,A
+                cpu.bit(7, r[_A]);
+                return 8;
+            case 0x80: // RES 0,B
+                r[_B] &= 0xfe;
+                return 8;
+            case 0x81: // RES 0,C
+                r[_C] &= 0xfe;
+                return 8;
+            case 0x82: // RES 0,D
+                r[_D] &= 0xfe;
+                return 8;
+            case 0x83: // RES 0,E
+                r[_E] &= 0xfe;
+                return 8;
+            case 0x84: // RES 0,H
+                r[_H] &= 0xfe;
+                return 8;
+            case 0x85: // RES 0,L
+                r[_L] &= 0xfe;
+                return 8;
+            case 0x86: // RES 0,(HL)
+                m.set8bit(regs.getHL(), m.get8bit(regs.getHL()) & 0xfe);
+                return 15;
+            case 0x87: // RES 0,A
+                r[_A] &= 0xfe;
+                return 8;
+            case 0x88: // RES 1,B
+                r[_B] &= 0xfd;
+                return 8;
+            case 0x89: // RES 1,C
+                r[_C] &= 0xfd;
+                return 8;
+            case 0x8a: // RES 1,D
+                r[_D] &= 0xfd;
+                return 8;
+            case 0x8b: // RES 1,E
+                r[_E] &= 0xfd;
+                return 8;
+            case 0x8c: // RES 1,H
+                r[_H] &= 0xfd;
+                return 8;
+            case 0x8d: // RES 1,L
+                r[_L] &= 0xfd;
+                return 8;
+            case 0x8e: // RES 1,(HL)
+                m.set8bit(regs.getHL(), m.get8bit(regs.getHL()) & 0xfd);
+                return 15;
+            case 0x8f: // RES 1,A
+                r[_A] &= 0xfd;
+                return 8;
+            case 0x90: // RES 2,B
+                r[_B] &= 0xfb;
+                return 8;
+            case 0x91: // RES 2,C
+                r[_C] &= 0xfb;
+                return 8;
+            case 0x92: // RES 2,D
+                r[_D] &= 0xfb;
+                return 8;
+            case 0x93: // RES 2,E
+                r[_E] &= 0xfb;
+                return 8;
+            case 0x94: // RES 2,H
+                r[_H] &= 0xfb;
+                return 8;
+            case 0x95: // RES 2,L
+                r[_L] &= 0xfb;
+                return 8;
+            case 0x96: // RES 2,(HL)
+                m.set8bit(regs.getHL(), m.get8bit(regs.getHL()) & 0xfb);
+                return 15;
+            case 0x97: // RES 2,A
+                r[_A] &= 0xfb;
+                return 8;
+            case 0x98: // RES 3,B
+                r[_B] &= 0xf7;
+                return 8;
+            case 0x99: // RES 3,C
+                r[_C] &= 0xf7;
+                return 8;
+            case 0x9a: // RES 3,D
+                r[_D] &= 0xf7;
+                return 8;
+            case 0x9b: // RES 3,E
+                r[_E] &= 0xf7;
+                return 8;
+            case 0x9c: // RES 3,H
+                r[_H] &= 0xf7;
+                return 8;
+            case 0x9d: // RES 3,L
+                r[_L] &= 0xf7;
+                return 8;
+            case 0x9e: // RES 3,(HL)
+                m.set8bit(regs.getHL(), m.get8bit(regs.getHL()) & 0xf7);
+                return 15;
+            case 0x9f: // RES 3,A
+                r[_A] &= 0xf7;
+                return 8;
+            case 0xa0: // RES 4,B
+                r[_B] &= 0xef;
+                return 8;
+            case 0xa1: // RES 4,C
+                r[_C] &= 0xef;
+                return 8;
+            case 0xa2: // RES 4,D
+                r[_D] &= 0xef;
+                return 8;
+            case 0xa3: // RES 4,E
+                r[_E] &= 0xef;
+                return 8;
+            case 0xa4: // RES 4,H
+                r[_H] &= 0xef;
+                return 8;
+            case 0xa5: // RES 4,L
+                r[_L] &= 0xef;
+                return 8;
+            case 0xa6: // RES 4,(HL)
+                m.set8bit(regs.getHL(), m.get8bit(regs.getHL()) & 0xef);
+                return 15;
+            case 0xa7: // RES 4,A
+                r[_A] &= 0xef;
+                return 8;
+            case 0xa8: // RES 5,B
+                r[_B] &= 0xdf;
+                return 8;
+            case 0xa9: // RES 5,C
+                r[_C] &= 0xdf;
+                return 8;
+            case 0xaa: // RES 5,D
+                r[_D] &= 0xdf;
+                return 8;
+            case 0xab: // RES 5,E
+                r[_E] &= 0xdf;
+                return 8;
+            case 0xac: // RES 5,H
+                r[_H] &= 0xdf;
+                return 8;
+            case 0xad: // RES 5,L
+                r[_L] &= 0xdf;
+                return 8;
+            case 0xae: // RES 5,(HL)
+                m.set8bit(regs.getHL(), m.get8bit(regs.getHL()) & 0xdf);
+                return 15;
+            case 0xaf: // RES 5,A
+                r[_A] &= 0xdf;
+                return 8;
+            case 0xb0: // RES 6,B
+                r[_B] &= 0xbf;
+                return 8;
+            case 0xb1: // RES 6,C
+                r[_C] &= 0xbf;
+                return 8;
+            case 0xb2: // RES 6,D
+                r[_D] &= 0xbf;
+                return 8;
+            case 0xb3: // RES 6,E
+                r[_E] &= 0xbf;
+                return 8;
+            case 0xb4: // RES 6,H
+                r[_H] &= 0xbf;
+                return 8;
+            case 0xb5: // RES 6,L
+                r[_L] &= 0xbf;
+                return 8;
+            case 0xb6: // RES 6,(HL)
+                m.set8bit(regs.getHL(), m.get8bit(regs.getHL()) & 0xbf);
+                return 15;
+            case 0xb7: // RES 6,A
+                r[_A] &= 0xbf;
+                return 8;
+            case 0xb8: // RES 7,B
+                r[_B] &= 0x7f;
+                return 8;
+            case 0xb9: // RES 7,C
+                r[_C] &= 0x7f;
+                return 8;
+            case 0xba: // RES 7,D
+                r[_D] &= 0x7f;
+                return 8;
+            case 0xbb: // RES 7,E
+                r[_E] &= 0x7f;
+                return 8;
+            case 0xbc: // RES 7,H
+                r[_H] &= 0x7f;
+                return 8;
+            case 0xbd: // RES 7,L
+                r[_L] &= 0x7f;
+                return 8;
+            case 0xbe: // RES 7,(HL)
+                m.set8bit(regs.getHL(), m.get8bit(regs.getHL()) & 0x7f);
+                return 15;
+            case 0xbf: // RES 7,A
+                r[_A] &= 0x7f;
+                return 8;
+            case 0xc0: // SET 0,B
+                r[_B] |= 0x01;
+                return 8;
+            case 0xc1: // SET 0,C
+                r[_C] |= 0x01;
+                return 8;
+            case 0xc2: // SET 0,D
+                r[_D] |= 0x01;
+                return 8;
+            case 0xc3: // SET 0,E
+                r[_E] |= 0x01;
+                return 8;
+            case 0xc4: // SET 0,H
+                r[_H] |= 0x01;
+                return 8;
+            case 0xc5: // SET 0,L
+                r[_L] |= 0x01;
+                return 8;
+            case 0xc6: // SET 0,(HL)
+                m.set8bit(regs.getHL(), m.get8bit(regs.getHL()) | 0x01);
+                return 15;
+            case 0xc7: // SET 0,A
+                r[_A] |= 0x01;
+                return 8;
+            case 0xc8: // SET 1,B
+                r[_B] |= 0x02;
+                return 8;
+            case 0xc9: // SET 1,C
+                r[_C] |= 0x02;
+                return 8;
+            case 0xca: // SET 1,D
+                r[_D] |= 0x02;
+                return 8;
+            case 0xcb: // SET 1,E
+                r[_E] |= 0x02;
+                return 8;
+            case 0xcc: // SET 1,H
+                r[_H] |= 0x02;
+                return 8;
+            case 0xcd: // SET 1,L
+                r[_L] |= 0x02;
+                return 8;
+            case 0xce: // SET 1,(HL)
+                m.set8bit(regs.getHL(), m.get8bit(regs.getHL()) | 0x02);
+                return 15;
+            case 0xcf: // SET 1,A
+                r[_A] |= 0x02;
+                return 8;
+            case 0xd0: // SET 2,B
+                r[_B] |= 0x04;
+                return 8;
+            case 0xd1: // SET 2,C
+                r[_C] |= 0x04;
+                return 8;
+            case 0xd2: // SET 2,D
+                r[_D] |= 0x04;
+                return 8;
+            case 0xd3: // SET 2,E
+                r[_E] |= 0x04;
+                return 8;
+            case 0xd4: // SET 2,H
+                r[_H] |= 0x04;
+                return 8;
+            case 0xd5: // SET 2,L
+                r[_L] |= 0x04;
+                return 8;
+            case 0xd6: // SET 2,(HL)
+                m.set8bit(regs.getHL(), m.get8bit(regs.getHL()) | 0x04);
+                return 15;
+            case 0xd7: // SET 2,A
+                r[_A] |= 0x04;
+                return 8;
+            case 0xd8: // SET 3,B
+                r[_B] |= 0x08;
+                return 8;
+            case 0xd9: // SET 3,C
+                r[_C] |= 0x08;
+                return 8;
+            case 0xda: // SET 3,D
+                r[_D] |= 0x08;
+                return 8;
+            case 0xdb: // SET 3,E
+                r[_E] |= 0x08;
+                return 8;
+            case 0xdc: // SET 3,H
+                r[_H] |= 0x08;
+                return 8;
+            case 0xdd: // SET 3,L
+                r[_L] |= 0x08;
+                return 8;
+            case 0xde: // SET 3,(HL)
+                m.set8bit(regs.getHL(), m.get8bit(regs.getHL()) | 0x08);
+                return 15;
+            case 0xdf: // SET 3,A
+                r[_A] |= 0x08;
+                return 8;
+            case 0xe0: // SET 4,B
+                r[_B] |= 0x10;
+                return 8;
+            case 0xe1: // SET 4,C
+                r[_C] |= 0x10;
+                return 8;
+            case 0xe2: // SET 4,D
+                r[_D] |= 0x10;
+                return 8;
+            case 0xe3: // SET 4,E
+                r[_E] |= 0x10;
+                return 8;
+            case 0xe4: // SET 4,H
+                r[_H] |= 0x10;
+                return 8;
+            case 0xe5: // SET 4,L
+                r[_L] |= 0x10;
+                return 8;
+            case 0xe6: // SET 4,(HL)
+                m.set8bit(regs.getHL(), m.get8bit(regs.getHL()) | 0x10);
+                return 15;
+            case 0xe7: // SET 4,A
+                r[_A] |= 0x10;
+                return 8;
+            case 0xe8: // SET 5,B
+                r[_B] |= 0x20;
+                return 8;
+            case 0xe9: // SET 5,C
+                r[_C] |= 0x20;
+                return 8;
+            case 0xea: // SET 5,D
+                r[_D] |= 0x20;
+                return 8;
+            case 0xeb: // SET 5,E
+                r[_E] |= 0x20;
+                return 8;
+            case 0xec: // SET 5,H
+                r[_H] |= 0x20;
+                return 8;
+            case 0xed: // SET 5,L
+                r[_L] |= 0x20;
+                return 8;
+            case 0xee: // SET 5,(HL)
+                m.set8bit(regs.getHL(), m.get8bit(regs.getHL()) | 0x20);
+                return 15;
+            case 0xef: // SET 5,A
+                r[_A] |= 0x20;
+                return 8;
+            case 0xf0: // SET 6,B
+                r[_B] |= 0x40;
+                return 8;
+            case 0xf1: // SET 6,C
+                r[_C] |= 0x40;
+                return 8;
+            case 0xf2: // SET 6,D
+                r[_D] |= 0x40;
+                return 8;
+            case 0xf3: // SET 6,E
+                r[_E] |= 0x40;
+                return 8;
+            case 0xf4: // SET 6,H
+                r[_H] |= 0x40;
+                return 8;
+            case 0xf5: // SET 6,L
+                r[_L] |= 0x40;
+                return 8;
+            case 0xf6: // SET 6,(HL)
+                m.set8bit(regs.getHL(), m.get8bit(regs.getHL()) | 0x40);
+                return 15;
+            case 0xf7: // SET 6,A
+                r[_A] |= 0x40;
+                return 8;
+            case 0xf8: // SET 7,B
+                r[_B] |= 0x80;
+                return 8;
+            case 0xf9: // SET 7,C
+                r[_C] |= 0x80;
+                return 8;
+            case 0xfa: // SET 7,D
+                r[_D] |= 0x80;
+                return 8;
+            case 0xfb: // SET 7,E
+                r[_E] |= 0x80;
+                return 8;
+            case 0xfc: // SET 7,H
+                r[_H] |= 0x80;
+                return 8;
+            case 0xfd: // SET 7,L
+                r[_L] |= 0x80;
+                return 8;
+            case 0xfe: // SET 7,(HL)
+                m.set8bit(regs.getHL(), m.get8bit(regs.getHL()) | 0x80);
+                return 15;
+            case 0xff: // SET 7,A
+                r[_A] |= 0x80;
+                return 8;
+
+        }
+        throw cpu.unhandled("CB", op);
+    }
+
+    private int stepED(Registers regs, int[] r, Memory m) {
+        final int op = cpu.readNextByte();
+        switch (op) {
+            case 0x42: // SBC HL,BC
+                cpu.sbcHL(regs.getBC());
+                return 15;
+            case 0x43: // LD (nn),BC
+                m.set16bit(cpu.readNextWord(), regs.getBC());
+                return 20;
+            case 0x44: // NEG
+                cpu.neg();
+                return 8;
+            case 0x47: // LD I,A
+                r[_I] = r[_A];
+                return 9;
+            case 0x4a: // ADC HL,BC
+                cpu.adcHL(regs.getBC());
+                return 15;
+            case 0x4b: // LD BC,(nn)
+                regs.setBC(m.get16bit(cpu.readNextWord()));
+                return 20;
+            case 0x4d: // RETI
+                r[_PC] = cpu.pop();
+                return 14;
+            case 0x52: // SBC HL,DE
+                cpu.sbcHL(regs.getDE());
+                return 15;
+            case 0x53: // LD (nn),DE
+                m.set16bit(cpu.readNextWord(), regs.getDE());
+                return 20;
+            case 0x56: // IM 1
+                regs.im = IntMode.IM1;
+                return 8;
+            case 0x58: // IN E,(C)
+                log.warn("Not implemented IN E,(c)");
+                return 12;
+            case 0x5a: // ADC HL,DE
+                cpu.adcHL(regs.getDE());
+                return 15;
+            case 0x5b: // LD DE,(nn)
+                regs.setDE(m.get16bit(cpu.readNextWord()));
+                return 20;
+            case 0x62: // SBC HL,HL
+                cpu.sbcHL(regs.getHL());
+                return 15;
+            case 0x6a: // ADC HL,HL
+                cpu.adcHL(regs.getHL());
+                return 15;
+            case 0x6b: // LD HL,(nn)
+                regs.setHL(m.get16bit(cpu.readNextWord()));
+                return 20;
+            case 0x6f: // RLD
+                cpu.rld();
+                return 18;
+            case 0x72: // SBC HL,SP
+                cpu.sbcHL(regs.getSP());
+                return 15;
+            case 0x73: // LD (nn),SP
+                m.set16bit(cpu.readNextWord(), regs.getSP());
+                return 20;
+            case 0x78: // IN A,(C)
+                r[_A] = cpu.readPort(regs.getBC());
+                return 8;
+            case 0x79: // OUT (C),A
+                cpu.writePort(regs.getBC(), r[_A]);
+                return 12;
+            case 0x7a: // ADC HL,SP
+                cpu.adcHL(regs.getSP());
+                return 15;
+            case 0x7b: // LD SP,(nn)
+                regs.setSP(m.get16bit(cpu.readNextWord()));
+                return 20;
+            case 0xb0: // LDIR
+                return cpu.ldxr(1);
+            case 0xb1: // CPIR
+                return cpu.cpxr(1);
+            case 0xb8: // LDDR
+                return cpu.ldxr(-1);
+            case 0xb9: // CPDR
+                return cpu.cpxr(-1);
+
+        }
+        throw cpu.unhandled("ED", op);
+    }
+
+    private int stepIndex(Registers regs, int[] r, Memory m, int index, String name) {
+        final int op = cpu.readNextByte();
+        switch (op) {
+            case 0x09: // ADD I?,BC
+                r[index] = cpu.add16bit(r[index], regs.getBC());
+                return 15;
+            case 0x19: // ADD I?,DE
+                r[index] = cpu.add16bit(r[index], regs.getDE());
+                return 15;
+            case 0x21: // LD I?,nn
+                r[index] = cpu.readNextWord();
+                return 14;
+            case 0x23: // INC I?
+                r[index] = (r[index] + 1) & 0xffff;
+                return 10;
+            case 0x26: // LD I?H,n (undoc)
+                r[index] = (r[index] & 0xff) | (cpu.readNextByte() << 8);
+                return 15;
+            case 0x29: // ADD I?,I?
+                r[index] = cpu.add16bit(r[index], r[index]);
+                return 15;
+            case 0x2a: // LD I?,(nn)
+                r[index] = m.get16bit(cpu.readNextWord());
+                return 20;
+            case 0x34: { // INC (I?+d)
+                final int addr = cpu.indexAddress(index);
+                m.set8bit(addr, cpu.inc8(m.get8bit(addr)));
+                return 23;
+            }
+            case 0x35: { // DEC (I?+d)
+                final int addr = cpu.indexAddress(index);
+                m.set8bit(addr, cpu.dec8(m.get8bit(addr)));
+                return 23;
+            }
+            case 0x36: { // LD (I?+d),n
+                final int addr = cpu.indexAddress(index);
+                m.set8bit(addr, cpu.readNextByte());
+                return 19;
+            }
+            case 0x39: // ADD I?,SP
+                r[index] = cpu.add16bit(r[index], regs.getSP());
+                return 15;
+            case 0x46: // LD B,(I?+d)
+                r[_B] = m.get8bit(cpu.indexAddress(index));
+                return 19;
+            case 0x4e: // LD C,(I?+d)
+                r[_C] = m.get8bit(cpu.indexAddress(index));
+                return 19;
+            case 0x56: // LD D,(I?+d)
+                r[_D] = m.get8bit(cpu.indexAddress(index));
+                return 19;
+            case 0x5e: // LD E,(I?+d)
+                r[_E] = m.get8bit(cpu.indexAddress(index));
+                return 19;
+            case 0x66: // LD H,(I?+d)
+                r[_H] = m.get8bit(cpu.indexAddress(index));
+                return 19;
+            case 0x6e: // LD L,(I?+d)
+                r[_L] = m.get8bit(cpu.indexAddress(index));
+                return 19;
+            case 0x6f: // LD I?L,A (undoc)
+                r[index] = (r[index] & 0xff00) | r[_A];
+                return 15;
+            case 0x70: // LD (I?+d),B
+                m.set8bit(cpu.indexAddress(index), r[_B]);
+                return 19;
+            case 0x71: // LD (I?+d),C
+                m.set8bit(cpu.indexAddress(index), r[_C]);
+                return 19;
+            case 0x72: // LD (I?+d),D
+                m.set8bit(cpu.indexAddress(index), r[_D]);
+                return 19;
+            case 0x73: // LD (I?+d),E
+                m.set8bit(cpu.indexAddress(index), r[_E]);
+                return 19;
+            case 0x74: // LD (I?+d),H
+                m.set8bit(cpu.indexAddress(index), r[_H]);
+                return 19;
+            case 0x75: // LD (I?+d),L
+                m.set8bit(cpu.indexAddress(index), r[_L]);
+                return 19;
+            case 0x77: // LD (I?+d),A
+                m.set8bit(cpu.indexAddress(index), r[_A]);
+                return 19;
+            case 0x7d: // LD A,I?L (undoc)
+                r[_A] = r[index] & 0xff;
+                return 15;
+            case 0x7e: // LD A,(I?+d)
+                r[_A] = m.get8bit(cpu.indexAddress(index));
+                return 19;
+            case 0x86: // ADD A,(I?+d)
+                cpu.add8(m.get8bit(cpu.indexAddress(index)));
+                return 19;
+            case 0x96: // SUB (I?+d)
+                cpu.sub8(m.get8bit(cpu.indexAddress(index)));
+                return 19;
+            case 0xa6: // AND (I?+d)
+                cpu.and8(m.get8bit(cpu.indexAddress(index)));
+                return 19;
+            case 0xbe: // CP (I?+d)
+                cpu.cp8(m.get8bit(cpu.indexAddress(index)));
+                return 19;
+            case 0xcb: { // DDCB/FDCB prefix
+                final int addr = cpu.indexAddress(index);
+                return stepIndexCB(m, addr, cpu.readNextByte());
+            }
+            case 0xe1: // POP I?
+                r[index] = cpu.pop();
+                return 15;
+            case 0xe5: // PUSH I?
+                cpu.push(r[index]);
+                return 15;
+            case 0xe9: // JP (I?)
+                r[_PC] = r[index];
+                return 8;
+
+        }
+        throw cpu.unhandled(name, op);
+    }
+
+    private int stepIndexCB(Memory m, int addr, int op) {
+        switch (op) {
+            case 0x46: // BIT 0,(I?+d)
+                cpu.bit(0, m.get8bit(addr));
+                return 20;
+            case 0x4e: // BIT 1,(I?+d)
+                cpu.bit(1, m.get8bit(addr));
+                return 20;
+            case 0x56: // BIT 2,(I?+d)
+                cpu.bit(2, m.get8bit(addr));
+                return 20;
+            case 0x5e: // BIT 3,(I?+d)
+                cpu.bit(3, m.get8bit(addr));
+                return 20;
+            case 0x66: // BIT 4,(I?+d)
+                cpu.bit(4, m.get8bit(addr));
+                return 20;
+            case 0x6e: // BIT 5,(I?+d)
+                cpu.bit(5, m.get8bit(addr));
+                return 20;
+            case 0x76: // BIT 6,(I?+d)
+                cpu.bit(6, m.get8bit(addr));
+                return 20;
+            case 0x7e: // BIT 7,(I?+d)
+                cpu.bit(7, m.get8bit(addr));
+                return 20;
+            case 0x86: // RES 0,(I?+d)
+                m.set8bit(addr, m.get8bit(addr) & 0xfe);
+                return 15;
+            case 0x8e: // RES 1,(I?+d)
+                m.set8bit(addr, m.get8bit(addr) & 0xfd);
+                return 15;
+            case 0x96: // RES 2,(I?+d)
+                m.set8bit(addr, m.get8bit(addr) & 0xfb);
+                return 15;
+            case 0x9e: // RES 3,(I?+d)
+                m.set8bit(addr, m.get8bit(addr) & 0xf7);
+                return 15;
+            case 0xa6: // RES 4,(I?+d)
+                m.set8bit(addr, m.get8bit(addr) & 0xef);
+                return 15;
+            case 0xae: // RES 5,(I?+d)
+                m.set8bit(addr, m.get8bit(addr) & 0xdf);
+                return 15;
+            case 0xb6: // RES 6,(I?+d)
+                m.set8bit(addr, m.get8bit(addr) & 0xbf);
+                return 15;
+            case 0xbe: // RES 7,(I?+d)
+                m.set8bit(addr, m.get8bit(addr) & 0x7f);
+                return 15;
+            case 0xc6: // SET 0,(I?+d)
+                m.set8bit(addr, m.get8bit(addr) | 0x01);
+                return 23;
+            case 0xce: // SET 1,(I?+d)
+                m.set8bit(addr, m.get8bit(addr) | 0x02);
+                return 23;
+            case 0xd6: // SET 2,(I?+d)
+                m.set8bit(addr, m.get8bit(addr) | 0x04);
+                return 23;
+            case 0xde: // SET 3,(I?+d)
+                m.set8bit(addr, m.get8bit(addr) | 0x08);
+                return 23;
+            case 0xe6: // SET 4,(I?+d)
+                m.set8bit(addr, m.get8bit(addr) | 0x10);
+                return 23;
+            case 0xee: // SET 5,(I?+d)
+                m.set8bit(addr, m.get8bit(addr) | 0x20);
+                return 23;
+            case 0xf6: // SET 6,(I?+d)
+                m.set8bit(addr, m.get8bit(addr) | 0x40);
+                return 23;
+            case 0xfe: // SET 7,(I?+d)
+                m.set8bit(addr, m.get8bit(addr) | 0x80);
+                return 23;
+
+        }
+        throw new RuntimeException("Unhandled(CB): "
+                + Integer.toHexString(op));
+    }
+
+    private int jr(boolean test) {
+        final int dist = cpu.readByteOffset();
+        if (test) {
+            cpu.registers.reg[_PC] = (cpu.registers.reg[_PC] + dist) & 0xffff;
+            return 12;
+        }
+        return 7;
+    }
+
+    private int jp(boolean test) {
+        final int addr = cpu.readNextWord();
+        if (test) {
+            cpu.registers.reg[_PC] = addr;
+        }
+        return 10;
+    }
+
+    private int call(boolean test) {
+        final int addr = cpu.readNextWord();
+        if (test) {
+            cpu.push(cpu.registers.reg[_PC]);
+            cpu.registers.reg[_PC] = addr;
+            return 17;
+        }
+        return 10;
+    }
+
+    private int retIf(boolean test) {
+        if (test) {
+            cpu.registers.reg[_PC] = cpu.pop();
+            return 11;
+        }
+        return 5;
+    }
+
+    private int rst(int addr) {
+        cpu.push(cpu.registers.reg[_PC]);
+        cpu.registers.reg[_PC] = addr;
+        return 11;
+    }
+}
@@ -0,0 +1,60 @@
+package z80;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static z80.Registers.*;
+
+public class CpuEngineTests {
+
+    private static final int FRAME = 69888;
+
+    /**
+     * Boots the ROM on two engines, delivering an interrupt every frame, and
+     * checks they finish in exactly the same state.
+     */
+    @Test
+    public void testEnginesMatchBootingRom() {
+        final Cpu handlers = bootRom(Cpu.Engine.HANDLERS, 100);
+        final Cpu switched = bootRom(Cpu.Engine.SWITCH, 100);
+
+        assertEquals(handlers.getTStates(), switched.getTStates());
+        for (int i = 0; i < 20; i++) {
+            assertEquals("reg " + i, handlers.getRegisters().reg[i], switched.getRegisters().reg[i]);
+        }
+        for (int addr = 0; addr < 0x10000; addr++) {
+            assertEquals("addr " + addr, handlers.getMemory().get8bit(addr), switched.getMemory().get8bit(addr));
+        }
+    }
+
+    @Test
+    public void testEngineSpeed() {
+        for (Cpu.Engine engine : Cpu.Engine.values()) {
+            bootRom(engine, 200);
+            final long start = System.nanoTime();
+            final Cpu cpu = bootRom(engine, 200);
+            final double mhz = cpu.getTStates() / ((System.nanoTime() - start) / 1000.0);
+            System.out.println(String.format("%s engine: %.1f MHz", engine, mhz));
+        }
+    }
+
+    static Cpu bootRom(Cpu.Engine engine, int frames) {
+        final Cpu cpu = new Cpu();
+        final SpectrumMemory memory = new SpectrumMemory();
+        memory.setListener((addr, val) -> {});
+        cpu.setEngine(engine);
+        cpu.setMemory(memory);
+        cpu.setRegisters(new Registers());
+        cpu.setKeyboard(addr -> 0xff);
+
+        long nextInt = FRAME;
+        for (int i = 0; i < frames; i++) {
+            while (cpu.getTStates() < nextInt) {
+                cpu.execute();
+            }
+            nextInt += FRAME;
+            cpu.maskableInterrupt();
+        }
+        return cpu;
+    }
+}
@@ -0,0 +1,14 @@
+package z80;
+
+/**
+ * Runs the instruction tests against the switch based engine.
+ */
+public class SwitchEngineCpuTests extends CpuTests {
+
+    @Override
+    protected Cpu createCpu() {
+        final Cpu cpu = new Cpu();
+        cpu.setEngine(Cpu.Engine.SWITCH);
+        return cpu;
+    }
+}